@@ -0,0 +1,10 @@
+package converter;
+
+/**
+ * DB 에 한 바이트 코드로 저장되는 enum.
+ * ordinal 과 달리 코드는 직접 지정하므로 enum 상수의 순서를 바꾸거나 중간에 추가해도 기존 데이터가 깨지지 않는다.
+ */
+public interface CodedEnum {
+
+    byte getCode();
+}
@@ -0,0 +1,55 @@
+package converter;
+
+import javax.persistence.AttributeConverter;
+import java.lang.reflect.Array;
+
+/**
+ * CodedEnum 을 TINYINT 한 컬럼으로 저장하는 컨버터의 공통 구현.
+ * EnumType.STRING 은 이름 길이만큼 varchar 를 차지하기 때문에 로우가 많은 테이블에서는 로우/인덱스 크기가 커진다.
+ *
+ * 하이버네이트 5.3 은 Byte 를 JDBC 타입으로 매핑하지 못해서(No Dialect mapping for JDBC type) DB 쪽 타입은 Short 로 둔다.
+ * 컬럼은 필드에 columnDefinition = "tinyint" 로 지정해야 한 바이트로 저장된다.
+ *
+ * 사용법 : enum 마다 하위 클래스를 만들고 @Converter 를 붙인 뒤
+ *          필드에 @Convert(converter = ...) 와 @Column(columnDefinition = "tinyint") 로 지정
+ */
+public abstract class CodedEnumConverter<E extends Enum<E> & CodedEnum> implements AttributeConverter<E, Short> {
+
+    private final Class<E> enumType;
+    private final E[] byCode;
+
+    protected CodedEnumConverter(Class<E> enumType) {
+        this.enumType = enumType;
+        @SuppressWarnings("unchecked")
+        E[] byCode = (E[]) Array.newInstance(enumType, 256);
+        for (E constant : enumType.getEnumConstants()) {
+            int index = Byte.toUnsignedInt(constant.getCode());
+            if (byCode[index] != null) {
+                throw new IllegalStateException("duplicate code " + constant.getCode() + " in " + enumType.getName()
+                        + ": " + byCode[index] + ", " + constant);
+            }
+            byCode[index] = constant;
+        }
+        this.byCode = byCode;
+    }
+
+    @Override
+    public Short convertToDatabaseColumn(E attribute) {
+        return attribute == null ? null : (short) attribute.getCode();
+    }
+
+    @Override
+    public E convertToEntityAttribute(Short dbData) {
+        if (dbData == null) {
+            return null;
+        }
+        if (dbData < Byte.MIN_VALUE || dbData > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("unknown code " + dbData + " for " + enumType.getName());
+        }
+        E constant = byCode[Byte.toUnsignedInt(dbData.byteValue())];
+        if (constant == null) {
+            throw new IllegalArgumentException("unknown code " + dbData + " for " + enumType.getName());
+        }
+        return constant;
+    }
+}
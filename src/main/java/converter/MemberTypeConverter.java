@@ -0,0 +1,13 @@
+package converter;
+
+import jpql.MemberType;
+
+import javax.persistence.Converter;
+
+@Converter
+public class MemberTypeConverter extends CodedEnumConverter<MemberType> {
+
+    public MemberTypeConverter() {
+        super(MemberType.class);
+    }
+}
@@ -0,0 +1,38 @@
+package jpql;
+
+import javax.persistence.*;
+
+/**
+ * 주소 사전. 같은 주소는 한 로우만 저장하고, 주소를 쓰는 쪽은 id(8바이트)만 가진다. (AddressDictionary)
+ */
+@Entity
+@Table(name = "ADDRESS_CODE",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"city", "street", "zipcode"}))
+@NamedQuery(
+    name = "AddressCode.findIdByAddress",
+    query = "select a.id from AddressCode a " +
+            "where a.address.city = :city and a.address.street = :street and a.address.zipcode = :zipcode"
+)
+public class AddressCode {
+
+    @Id @GeneratedValue
+    private Long id;
+
+    @Embedded
+    private Address address;
+
+    protected AddressCode() {
+    }
+
+    public AddressCode(Address address) {
+        this.address = address;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+}
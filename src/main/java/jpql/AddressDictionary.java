@@ -0,0 +1,117 @@
+package jpql;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 주소를 ADDRESS_CODE 의 id 로 바꿔주는 사전. 한번 찾은 id 는 메모리에 캐시한다.
+ *
+ * 주문마다 city/street/zipcode 문자열을 반복해서 저장하는 대신 주소 id 만 저장하고 싶을 때 사용.
+ * 반환된 id 는 em.getReference(AddressCode.class, id) 로 연관관계에 설정한다. (CompactOrder)
+ * 주소 값은 null 대신 빈 문자열로 정규화해서 저장한다. (유니크 제약이 null 을 서로 다른 값으로 보기 때문)
+ *
+ * 새 주소는 호출한 쪽의 트랜잭션과 별개로 짧은 트랜잭션으로 바로 커밋한다.
+ * 그래서 호출한 트랜잭션이 롤백되어도 캐시에 있는 id 는 항상 DB 에 존재한다.
+ * 여러 스레드/프로세스가 같은 새 주소를 동시에 저장하면 하나만 성공하고 나머지는 유니크 제약 위반이 발생하는데,
+ * 이 경우 먼저 저장된 주소를 다시 조회해서 그 id 를 사용한다.
+ */
+public class AddressDictionary {
+
+    private final EntityManagerFactory emf;
+    private final ConcurrentHashMap<String, Long> cache = new ConcurrentHashMap<>();
+
+    public AddressDictionary(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    public Long idOf(Address address) {
+        Address normalized = normalize(address);
+        String key = normalized.getCity() + '\u0000' + normalized.getStreet() + '\u0000' + normalized.getZipcode();
+
+        Long cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Long id = findOrCreate(normalized);
+        cache.putIfAbsent(key, id);
+        return id;
+    }
+
+    public Address addressOf(EntityManager em, Long id) {
+        AddressCode addressCode = em.find(AddressCode.class, id);
+        return addressCode == null ? null : addressCode.getAddress();
+    }
+
+    public void evictAll() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private Long findOrCreate(Address address) {
+        Long id = find(address);
+        if (id != null) {
+            return id;
+        }
+
+        try {
+            return create(address);
+        } catch (PersistenceException e) {
+            /** 그 사이 다른 트랜잭션이 같은 주소를 먼저 저장했으면 유니크 제약 위반. 저장된 주소를 사용 */
+            id = find(address);
+            if (id == null) {
+                throw e;
+            }
+            return id;
+        }
+    }
+
+    private Long find(Address address) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Long> ids = em.createNamedQuery(QueryRegistry.ADDRESS_CODE_FIND_ID_BY_ADDRESS, Long.class)
+                    .setParameter("city", address.getCity())
+                    .setParameter("street", address.getStreet())
+                    .setParameter("zipcode", address.getZipcode())
+                    .getResultList();
+            return ids.isEmpty() ? null : ids.get(0);
+        } finally {
+            em.close();
+        }
+    }
+
+    private Long create(Address address) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        try {
+            AddressCode addressCode = new AddressCode(address);
+            em.persist(addressCode);
+            tx.commit();
+            return addressCode.getId();
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Address normalize(Address address) {
+        Address normalized = new Address();
+        normalized.setCity(address.getCity() == null ? "" : address.getCity().trim());
+        normalized.setStreet(address.getStreet() == null ? "" : address.getStreet().trim());
+        normalized.setZipcode(address.getZipcode() == null ? "" : address.getZipcode().trim());
+        return normalized;
+    }
+}
@@ -0,0 +1,37 @@
+package jpql;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * 아카이빙 작업의 진행 위치. 청크를 옮길 때 같은 트랜잭션 안에서 갱신되기 때문에
+ * 작업이 중간에 멈춰도 마지막으로 커밋된 청크 다음부터 다시 시작할 수 있다.
+ */
+@Entity
+public class ArchiveCheckpoint {
+
+    @Id
+    private String jobName;
+
+    private Long lastId;
+
+    protected ArchiveCheckpoint() {
+    }
+
+    public ArchiveCheckpoint(String jobName, Long lastId) {
+        this.jobName = jobName;
+        this.lastId = lastId;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+}
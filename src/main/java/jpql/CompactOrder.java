@@ -0,0 +1,62 @@
+package jpql;
+
+import shard.ShardedIdGenerator;
+
+import javax.persistence.*;
+
+/**
+ * 주소 문자열 대신 주소 사전(ADDRESS_CODE) 의 id 만 외래 키로 저장하는 주문. 나머지 컬럼은 Order 와 같다.
+ * 주소 id 는 AddressDictionary.idOf 로 구하고, em.getReference(AddressCode.class, id) 로 연관관계를 설정한다.
+ *
+ * JpaMain.compact_storage 에서 Order 와 저장 크기를 비교하기 위해서만 사용하는 엔티티.
+ */
+@Entity
+@Table(name = "ORDERS_COMPACT")
+public class CompactOrder {
+
+    @Id
+    @GeneratedValue(generator = ShardedIdGenerator.NAME)
+    private Long id;
+
+    private int orderAmount;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "ADDRESS_ID")
+    private AddressCode addressCode;
+
+    @ManyToOne
+    @JoinColumn(name = "PRODUCT_ID")
+    private Product product;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public int getOrderAmount() {
+        return orderAmount;
+    }
+
+    public void setOrderAmount(int orderAmount) {
+        this.orderAmount = orderAmount;
+    }
+
+    public AddressCode getAddressCode() {
+        return addressCode;
+    }
+
+    public void setAddressCode(AddressCode addressCode) {
+        this.addressCode = addressCode;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public void setProduct(Product product) {
+        this.product = product;
+    }
+}
@@ -1,11 +1,16 @@
 package jpql;
 
+import shard.ShardRouter;
+
 import javax.persistence.*;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 public class JpaMain {
     public static void main(String[] args) {
         EntityManagerFactory emf = Persistence.createEntityManagerFactory("hello");
+        QueryRegistry.register(emf);
         PersistenceUnitUtil persistenceUnitUtil = emf.getPersistenceUnitUtil();
         EntityManager em = emf.createEntityManager();
 
@@ -23,6 +28,7 @@ public class JpaMain {
             e.printStackTrace();
         } finally {
             em.close();
+            QueryRegistry.printStatistics(emf);
             emf.close();
         }
 
@@ -59,7 +65,8 @@ public class JpaMain {
          *
          * 해결책 : 벌크 연산을 먼저 실행해버리기 or 벌크 연산 수행 후 영속성 컨텍스트 초기화
          * */
-        int resultCount = em.createQuery("update Member m set m.age = 20 where m.username = :username")
+        int resultCount = em.createNamedQuery(QueryRegistry.MEMBER_UPDATE_AGE_BY_USERNAME)
+                .setParameter("age", 20)
                 .setParameter("username", "회원1")
                 .executeUpdate();
 
@@ -73,6 +80,205 @@ public class JpaMain {
 
     }
 
+    /**
+     * 아카이빙은 청크마다 별도의 트랜잭션을 사용하므로 EntityManagerFactory 를 받는다.
+     * */
+    private void archive(EntityManagerFactory emf) throws InterruptedException {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        Long lastId = null;
+        for (int i = 0; i < 25; i++) {
+            Address address = new Address();
+            address.setCity("city" + i);
+            address.setStreet("street" + i);
+            address.setZipcode("zip" + i);
+
+            Order order = new Order();
+            order.setOrderAmount(i);
+            order.setAddress(address);
+            em.persist(order);
+            lastId = order.getId();
+        }
+        tx.commit();
+        em.close();
+
+        OrderArchiver archiver = new OrderArchiver(emf, "orders", 10, 100);
+        long archived = archiver.archiveUpTo(lastId);
+
+        System.out.println("archived = " + archived);
+        System.out.println("chunks = " + archiver.getChunkCount() + ", swept = " + archiver.getSweptCount()
+                + ", checkpoint = " + archiver.getCheckpoint());
+    }
+
+    /**
+     * 같은 회원을 여러번 변경할 때, 변경마다 트랜잭션을 커밋하는 방식과 write-behind 버퍼를 비교.
+     * */
+    private void write_behind(EntityManagerFactory emf) {
+        int members = 10;
+        int updates = 1000;
+
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+        Long[] ids = new Long[members];
+        for (int i = 0; i < members; i++) {
+            Member member = new Member();
+            member.setUsername("회원" + i);
+            em.persist(member);
+            ids[i] = member.getId();
+        }
+        tx.commit();
+        em.close();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            EntityManager direct = emf.createEntityManager();
+            direct.getTransaction().begin();
+            direct.find(Member.class, ids[i % members]).setAge(i);
+            direct.getTransaction().commit();
+            direct.close();
+        }
+        long directNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try (MemberWriteBehind writeBehind = new MemberWriteBehind(emf, 100, 50)) {
+            for (int i = 0; i < updates; i++) {
+                writeBehind.changeAge(ids[i % members], i);
+            }
+        }
+        long writeBehindNanos = System.nanoTime() - start;
+
+        System.out.println("direct = " + updates * 1_000_000_000L / directNanos + " updates/s");
+        System.out.println("write-behind = " + updates * 1_000_000_000L / writeBehindNanos + " updates/s");
+    }
+
+    /**
+     * 한 바이트 코드(MemberTypeConverter)와 기존 EnumType.STRING 매핑, 주소 문자열(Order)과 주소 id(CompactOrder) 의 저장 크기/스캔 속도 비교.
+     * 타입 비교는 Member 를 같은 컬럼으로 복사하되 type 만 varchar 로 바꾼 테이블과 tinyint 그대로인 테이블로 한다.
+     * 크기는 H2 의 DISK_SPACE_USED 로 측정한 테이블 크기. (인덱스 포함) 페이지 단위라 빈 공간도 포함되고, 실행마다 몇 % 씩 차이가 난다.
+     * */
+    private void compact_storage(EntityManager em) {
+        int rows = 100_000;
+        AddressDictionary addressDictionary = new AddressDictionary(em.getEntityManagerFactory());
+        UnitOfWork unitOfWork = new UnitOfWork(em);
+        for (int i = 0; i < rows; i++) {
+            Member member = new Member();
+            member.setUsername("회원" + i);
+            member.setAge(i % 100);
+            member.setType(i % 10 == 0 ? MemberType.ADMIN : MemberType.USER);
+            unitOfWork.persist(member);
+
+            Address address = new Address();
+            address.setCity("서울특별시");
+            address.setStreet("테헤란로 " + (i % 50));
+            address.setZipcode("06" + (i % 50));
+
+            Order order = new Order();
+            order.setOrderAmount(i);
+            order.setAddress(address);
+            unitOfWork.persist(order);
+
+            CompactOrder compactOrder = new CompactOrder();
+            compactOrder.setOrderAmount(i);
+            compactOrder.setAddressCode(em.getReference(AddressCode.class, addressDictionary.idOf(address)));
+            unitOfWork.persist(compactOrder);
+        }
+        unitOfWork.flushAndClear();
+
+        StringBuilder typeName = new StringBuilder("case type");
+        for (MemberType type : MemberType.values()) {
+            typeName.append(" when ").append(type.getCode()).append(" then '").append(type.name()).append("'");
+        }
+        typeName.append(" end");
+
+        em.createNativeQuery("create table MEMBER_TYPE_STRING as " +
+                "select id, age, username, TEAM_ID, " + typeName + " as type from Member").executeUpdate();
+        em.createNativeQuery("create table MEMBER_TYPE_CODE as " +
+                "select id, age, username, TEAM_ID, type from Member").executeUpdate();
+        /** 방금 쓴 페이지는 checkpoint 를 몇번 거쳐야 크기가 안정되므로, 크기가 변하지 않을 때까지 반복해서 측정 */
+        String[] tables = {"MEMBER_TYPE_STRING", "MEMBER_TYPE_CODE", "ORDERS", "ORDERS_COMPACT", "ADDRESS_CODE"};
+        long[] bytes = new long[tables.length];
+        for (int round = 0; round < 10; round++) {
+            em.createNativeQuery("checkpoint").executeUpdate();
+            long[] previous = bytes.clone();
+            for (int i = 0; i < tables.length; i++) {
+                bytes[i] = ((Number) em.createNativeQuery("select disk_space_used(?1)")
+                        .setParameter(1, tables[i])
+                        .getSingleResult()).longValue();
+            }
+            if (Arrays.equals(previous, bytes)) {
+                break;
+            }
+        }
+        for (int i = 0; i < tables.length; i++) {
+            System.out.println(tables[i] + " = " + bytes[i] / 1024 + "KB");
+        }
+        System.out.println("address dictionary = " + addressDictionary.size() + " rows");
+
+        Query stringScan = em.createNativeQuery("select count(*) from MEMBER_TYPE_STRING where type = ?1")
+                .setParameter(1, MemberType.ADMIN.name());
+        Query codeScan = em.createNativeQuery("select count(*) from MEMBER_TYPE_CODE where type = ?1")
+                .setParameter(1, MemberType.ADMIN.getCode());
+        stringScan.getSingleResult();
+        codeScan.getSingleResult();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            stringScan.getSingleResult();
+        }
+        long stringNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            codeScan.getSingleResult();
+        }
+        long codeNanos = System.nanoTime() - start;
+
+        System.out.println("scan STRING = " + rows * 10L * 1_000_000_000L / stringNanos + " rows/s");
+        System.out.println("scan code = " + rows * 10L * 1_000_000_000L / codeNanos + " rows/s");
+
+        em.createNativeQuery("drop table MEMBER_TYPE_STRING").executeUpdate();
+        em.createNativeQuery("drop table MEMBER_TYPE_CODE").executeUpdate();
+    }
+
+    /**
+     * 팀 이름을 샤드 키로 사용해서 팀/회원을 H2 메모리 DB 3개에 나눠 저장하고, 전체 샤드에서 조회.
+     * */
+    private void shard() {
+        try (ShardRouter router = ShardRouter.inMemoryH2("hello", 3, QueryRegistry::register)) {
+            for (String teamName : new String[]{"teamA", "teamB", "teamC", "teamD"}) {
+                router.inTransaction(teamName, em -> {
+                    Team team = new Team();
+                    team.setName(teamName);
+                    em.persist(team);
+
+                    for (int i = 0; i < 5; i++) {
+                        Member member = new Member();
+                        member.setUsername(teamName + "-회원" + i);
+                        member.setAge(i * 10);
+                        member.setType(i % 2 == 0 ? MemberType.ADMIN : MemberType.USER);
+                        member.changeTeam(team);
+                        em.persist(member);
+                    }
+                    return team.getId();
+                });
+            }
+
+            List<Member> result = router.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_TYPE_ORDER_BY_AGE_DESC, Member.class)
+                    .setParameter("userType", MemberType.ADMIN)
+                    .orderBy(Comparator.comparing(Member::getAge).reversed().thenComparing(Member::getId))
+                    .setFirstResult(1)
+                    .setMaxResults(5)
+                    .getResultList();
+
+            for (Member member : result) {
+                System.out.println("member = " + member + ", shard = " + router.shardOfId(member.getId()));
+            }
+        }
+    }
+
     private void named_query(EntityManager em) {
         Team team = new Team();
         team.setName("teamA");
@@ -98,7 +304,7 @@ public class JpaMain {
         /**
          * Named 쿼리는 어노테이션으로 세팅하기때문에 컴파일 시점에 오류를 잡아낼 수 있다는 장점이 있음.
          * */
-        List<Member> resultList = em.createNamedQuery("Member.findByUserName", Member.class)
+        List<Member> resultList = em.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_USERNAME, Member.class)
                 .setParameter("username", "회원1")
                 .getResultList();
         for (Member m : resultList) {
@@ -129,13 +335,8 @@ public class JpaMain {
         em.flush();
         em.clear();
 
-        String query1 = "select m from Member m where m = :member";
-        String query2 = "select m from Member m where m.id = :memberId";
-        String query3 = "select m from Member m where m.team = :team";
-        List<Member> list = em.createQuery(query3, Member.class)
+        List<Member> list = em.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_TEAM, Member.class)
                 .setParameter("team", team)
-//                .setParameter("member", member)
-//                .setParameter("memberId", member.getId())
                 .getResultList();
 
         System.out.println(list.size());
@@ -197,7 +398,7 @@ public class JpaMain {
          *  예를 들어 Team의 members를 조회해온다면, 전체 멤버를 조회해와야지 멤버중 5명만 조회하는 것은 의미에 맞지않다.
          *  만약 멤버 5명만 필요하다면 Member 쪽에서 5명을 조회하는 방식으로 바꿔야 한다.
          * */
-        List<Team> result = em.createQuery("select t from Team t", Team.class).getResultList();
+        List<Team> result = em.createNamedQuery(QueryRegistry.TEAM_FIND_ALL, Team.class).getResultList();
 
         for (Team t : result) {
             System.out.println("team = " + t.getName() + ", members = " + t.getMembers().size());
@@ -237,15 +438,15 @@ public class JpaMain {
         /** 컬렉션 값 연관 관계 - 묵시적 내부 조인 발생, 탐색 X */
         String query2 = "select t.members from Team t";
 
-        /** 컬렉션 값 연관 관계 - 명시적 조인을 사용하면 탐색 가능 */
-        String query3 = "select m.username from Team t join t.members m";
+        /** 컬렉션 값 연관 관계 - 명시적 조인을 사용하면 탐색 가능 (Team.findMemberUsernames) */
 
         /** 가급적 묵시적 조인 대신에 명시적 조인을 사용해야 한다.
          *  SQL 튜닝면에서도 명시적 조인이 더 용이하며,
          *  묵시적 조인은 조인이 일어나는 상황을 한눈에 파악하기 어렵다
          * */
 
-        List<String> resultList = em.createQuery(query3, String.class).getResultList();
+        List<String> resultList = em.createNamedQuery(QueryRegistry.TEAM_FIND_MEMBER_USERNAMES, String.class)
+                .getResultList();
 
         System.out.println("resultList = " + resultList);
     }
@@ -282,8 +483,7 @@ public class JpaMain {
          * */
         String query = "select concat('a','b') from Member m";
         String query2 = "select size(t.members) from Team t";
-        String query3 = "select function('group_concat', m.username) from Member m";
-        List<String> resultList = em.createQuery(query3, String.class)
+        List<String> resultList = em.createNamedQuery(QueryRegistry.MEMBER_FIND_USERNAME_CONCAT, String.class)
                 .getResultList();
 
         for (String s : resultList) {
@@ -308,13 +508,8 @@ public class JpaMain {
         em.flush();
         em.clear();
 
-        String query = "select " +
-                            "case when m.age <= 10 then '학생요금' " +
-                            "     when m.age >= 60 then '경로요금' " +
-                            "     else '일반요금'" +
-                            "end " +
-                        "from Member m";
-        List<String> resultList = em.createQuery(query, String.class)
+        /** 쿼리 정의는 QueryRegistry 참고 */
+        List<String> resultList = em.createNamedQuery(QueryRegistry.MEMBER_FEE_GRADE, String.class)
                 .getResultList();
 
         for (String s : resultList) {
@@ -322,8 +517,8 @@ public class JpaMain {
         }
 
         String query2 = "select coalesce(m.username, '이름 없는 회원') from Member m";
-        String query3 = "select nullif(m.username, '관리자') from Member m"; // 이름이 관리자면 null로 반환
-        List<String> resultList1 = em.createQuery(query3, String.class).getResultList();
+        List<String> resultList1 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_USERNAME_NULL_IF_ADMIN, String.class)
+                .getResultList();
 
         for (String s : resultList1) {
             System.out.println("s1 = " + s);
@@ -346,11 +541,8 @@ public class JpaMain {
         em.flush();
         em.clear();
 
-        String query = "select m.username, 'HELLO', true, m.type from Member m " +
-                        "where m.type = :userType and m.username is not null" +
-                        " and m.age between 1 and 100";
-
-        List<Object[]> resultList = em.createQuery(query)
+        /** 쿼리 정의는 QueryRegistry 참고 */
+        List<Object[]> resultList = em.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_TYPE, Object[].class)
                 .setParameter("userType", MemberType.ADMIN)
                 .getResultList();
 
@@ -372,8 +564,8 @@ public class JpaMain {
          * 반환 타입이 명확할때는 TypedQuery
          * 명확하지 않을때는 Query
          * */
-        TypedQuery<Member> query = em.createQuery("select m from Member m", Member.class);
-        Query query1 = em.createQuery("select m.username, m.age from Member m");
+        TypedQuery<Member> query = em.createNamedQuery(QueryRegistry.MEMBER_FIND_ALL, Member.class);
+        Query query1 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_USERNAME_AND_AGE);
 
         /** 결과가 없으면 빈 리스트 반환 */
         List<Member> resultList = query.getResultList();
@@ -385,7 +577,7 @@ public class JpaMain {
         Member result = query.getSingleResult();
 
         /** 파라미터 바인딩 */
-        Member singleResult = em.createQuery("select m from Member m where m.username = :username", Member.class)
+        Member singleResult = em.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_USERNAME, Member.class)
                 .setParameter("username", "test")
                 .getSingleResult();
 
@@ -401,19 +593,19 @@ public class JpaMain {
         em.clear();
 
         /** 엔티티 프로젝션 */
-        TypedQuery<Team> query = em.createQuery("select m.team from Member m", Team.class);
-        TypedQuery<Team> query1 = em.createQuery("select t from Member m join Team t", Team.class);
+        TypedQuery<Team> query = em.createNamedQuery(QueryRegistry.MEMBER_FIND_TEAM, Team.class);
+        TypedQuery<Team> query1 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_JOINED_TEAM, Team.class);
 
         /** 임베디드 타입 프로젝션 */
-        List<Address> addresses = em.createQuery("select o.address from Order o", Address.class)
+        List<Address> addresses = em.createNamedQuery(QueryRegistry.ORDER_FIND_ADDRESSES, Address.class)
                                 .getResultList();
 
         /** 스칼라 타입 프로젝션 - 타입이 다른 여러 필드를 조회할 때 */
-        List<Object[]> resultList = em.createQuery("select distinct m.username, m.age from Member m", Object[].class)
+        List<Object[]> resultList = em.createNamedQuery(QueryRegistry.MEMBER_FIND_DISTINCT_USERNAME_AND_AGE, Object[].class)
                                 .getResultList();
 
 
-        List<MemberDTO> resultList1 = em.createQuery("select new jpql.MemberDTO(m.username, m.age) from Member m", MemberDTO.class)
+        List<MemberDTO> resultList1 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_MEMBER_DTO, MemberDTO.class)
                                 .getResultList();
         MemberDTO memberDTO = resultList1.get(0);
         System.out.println("memberDTO name = " + memberDTO.getName());
@@ -422,17 +614,28 @@ public class JpaMain {
     }
 
     public void paging(EntityManager em) {
+        /** 대량 insert 시 flush/clear 는 UnitOfWork 가 배치 사이즈 단위로 처리. 공유하는 팀은 pin 으로 유지
+         *  changeTeam 은 team.members 에도 회원을 추가하므로 clear 해도 회원이 메모리에 남는다. 연관관계의 주인만 설정.
+         * */
+        UnitOfWork unitOfWork = new UnitOfWork(em);
+
+        Team team = new Team();
+        team.setName("teamA");
+        unitOfWork.persist(team);
+        unitOfWork.pin(team);
+
         for (int i = 0; i < 100; i++) {
             Member member = new Member();
             member.setUsername("test" + i);
             member.setAge(i);
-            em.persist(member);
+            member.setTeam(team);
+            unitOfWork.persist(member);
         }
 
-        em.flush();
-        em.clear();
+        unitOfWork.flushAndClear();
+        unitOfWork.printReport();
 
-        List<Member> result = em.createQuery("select m from Member m order by m.age desc", Member.class)
+        List<Member> result = em.createNamedQuery(QueryRegistry.MEMBER_FIND_ALL_ORDER_BY_AGE_DESC, Member.class)
                         .setFirstResult(1)
                         .setMaxResults(10)
                         .getResultList();
@@ -459,8 +662,8 @@ public class JpaMain {
 
         String inner_join_query = "select m from Member m inner join m.team t";
         String left_join_query = "select m from Member m left join m.team t";
-        String theta_join_query = "select m from Member m, Team t where m.username = t.name";
-        List<Member> result = em.createQuery(theta_join_query, Member.class)
+        /** 세타 조인 (Member.findByTeamName) */
+        List<Member> result = em.createNamedQuery(QueryRegistry.MEMBER_FIND_BY_TEAM_NAME, Member.class)
                 .getResultList();
 
         System.out.println("result size = " + result.size());
@@ -469,12 +672,10 @@ public class JpaMain {
          * 1. 조인 대상 필터링
          * 2. 연관관계 없는 엔티티 외부 조인 (하이버네이트 5.1부터)
          * */
-        String query1 = "select m from Member m left join m.team t on t.name = 'teamA'";
-        String query2 = "select m from Member m left join Team t on m.username = t.name";
-        List<Member> resultList1 = em.createQuery(query1, Member.class)
+        List<Member> resultList1 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_LEFT_JOIN_TEAM_A, Member.class)
                 .getResultList();
 
-        List<Member> resultList2 = em.createQuery(query2, Member.class)
+        List<Member> resultList2 = em.createNamedQuery(QueryRegistry.MEMBER_FIND_LEFT_JOIN_TEAM_BY_USERNAME, Member.class)
                 .getResultList();
 
     }
@@ -1,15 +1,81 @@
 package jpql;
 
+import converter.MemberTypeConverter;
+import shard.ShardedIdGenerator;
+
 import javax.persistence.*;
 
 @Entity
-@NamedQuery(
-    name = "Member.findByUserName",
-    query = "select m from Member m where m.username = :username"
-)
+@NamedQueries({
+    @NamedQuery(
+        name = "Member.findByUserName",
+        query = "select m from Member m where m.username = :username"
+    ),
+    @NamedQuery(
+        name = "Member.findByTeam",
+        query = "select m from Member m where m.team = :team"
+    ),
+    @NamedQuery(
+        name = "Member.findAllOrderByAgeDesc",
+        query = "select m from Member m order by m.age desc"
+    ),
+    @NamedQuery(
+        name = "Member.findByTypeOrderByAgeDesc",
+        query = "select m from Member m where m.type = :userType order by m.age desc, m.id"
+    ),
+    @NamedQuery(
+        name = "Member.findAll",
+        query = "select m from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findUsernameAndAge",
+        query = "select m.username, m.age from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findDistinctUsernameAndAge",
+        query = "select distinct m.username, m.age from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findMemberDTO",
+        query = "select new jpql.MemberDTO(m.username, m.age) from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findTeam",
+        query = "select m.team from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findJoinedTeam",
+        query = "select t from Member m join Team t"
+    ),
+    @NamedQuery(
+        name = "Member.findUsernameConcat",
+        query = "select function('group_concat', m.username) from Member m"
+    ),
+    @NamedQuery(
+        name = "Member.findUsernameNullIfAdmin",
+        query = "select nullif(m.username, '관리자') from Member m" // 이름이 관리자면 null로 반환
+    ),
+    @NamedQuery(
+        name = "Member.findByTeamName",
+        query = "select m from Member m, Team t where m.username = t.name"
+    ),
+    @NamedQuery(
+        name = "Member.findLeftJoinTeamA",
+        query = "select m from Member m left join m.team t on t.name = 'teamA'"
+    ),
+    @NamedQuery(
+        name = "Member.findLeftJoinTeamByUsername",
+        query = "select m from Member m left join Team t on m.username = t.name"
+    ),
+    @NamedQuery(
+        name = "Member.updateAgeByUserName",
+        query = "update Member m set m.age = :age where m.username = :username"
+    )
+})
 public class Member {
 
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(generator = ShardedIdGenerator.NAME)
     public Long id;
     public String username;
     private int age;
@@ -18,7 +84,9 @@ public class Member {
     @JoinColumn(name = "TEAM_ID")
     private Team team;
 
-    @Enumerated(EnumType.STRING)
+    /** EnumType.STRING 대신 한 바이트 코드로 저장 */
+    @Convert(converter = MemberTypeConverter.class)
+    @Column(columnDefinition = "tinyint")
     private MemberType type;
 
     public void changeTeam(Team team) {
@@ -1,5 +1,22 @@
 package jpql;
 
-public enum MemberType {
-    ADMIN, USER
+import converter.CodedEnum;
+
+/**
+ * 코드는 DB 에 저장되는 값이므로 한번 정하면 바꾸지 않는다. (MemberTypeConverter)
+ */
+public enum MemberType implements CodedEnum {
+    ADMIN((byte) 1),
+    USER((byte) 2);
+
+    private final byte code;
+
+    MemberType(byte code) {
+        this.code = code;
+    }
+
+    @Override
+    public byte getCode() {
+        return code;
+    }
 }
@@ -0,0 +1,336 @@
+package jpql;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 같은 회원의 나이/타입/팀을 짧은 시간에 여러번 변경하는 경우를 위한 write-behind 버퍼.
+ *
+ * 변경 요청은 바로 DB 에 반영하지 않고 회원 id 별로 하나로 합쳐서(마지막 값이 이김) 메모리에 쌓아두고,
+ * flushIntervalMillis 마다 또는 쌓인 회원 수가 flushThreshold 이상이 되면 JDBC 배치 update 로 한번에 반영한다.
+ * 버퍼는 ConcurrentHashMap 이라 락 없이 버킷 단위로 나뉘어 동시에 갱신된다.
+ *
+ * 장애 모델
+ * - 반영 전에 프로세스가 죽으면 아직 flush 되지 않은 변경은 유실된다. (최대 flushIntervalMillis 또는 flushThreshold 만큼)
+ * - 배치가 실패하면 롤백하고, 회원 한명씩 별도의 트랜잭션으로 다시 반영한다.
+ *   그래도 실패한 회원(없는 팀 id 등)만 버퍼로 되돌리고, 그 사이 들어온 새 변경이 우선한다.
+ * - 같은 회원이 MAX_ATTEMPTS 번 연속 실패하면 더 이상 재시도하지 않고 격리한다. (getQuarantined)
+ *   격리된 변경은 자동으로 반영되지 않으므로, 원인을 고친 뒤 다시 change* 로 넣어야 한다.
+ *   마지막 실패는 getLastFailure 로 확인할 수 있다.
+ * - close 이후의 change* 는 IllegalStateException 이 발생한다.
+ *   close 는 버퍼가 빌 때까지 flush 를 반복하고(실패한 회원은 MAX_ATTEMPTS 번까지 재시도 후 격리),
+ *   그래도 반영하지 못하고 격리된 변경이 남아 있으면 IllegalStateException 을 던진다. 이 변경은 프로세스가 끝나면 유실된다.
+ *   close 는 change* 를 호출하는 쪽이 모두 멈춘 뒤에 호출해야 한다.
+ *
+ * 벌크 연산과 마찬가지로 영속성 컨텍스트를 거치지 않으므로, 이미 회원을 조회해둔 EntityManager 에는 반영되지 않는다.
+ * 반영되지 않은 값까지 보려면 find 로 조회한다.
+ */
+public class MemberWriteBehind implements AutoCloseable {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String UPDATE_SQL = "update Member " +
+            "set age = coalesce(?, age), type = coalesce(?, type), TEAM_ID = coalesce(?, TEAM_ID) " +
+            "where id = ?";
+
+    private final EntityManagerFactory emf;
+    private final int flushThreshold;
+    private final ConcurrentHashMap<Long, PendingUpdate> pending = new ConcurrentHashMap<>();
+    /** flush 중인 변경. pending 에서 빠지기 전에 먼저 들어오고, 커밋된 뒤에 빠진다. */
+    private final ConcurrentHashMap<Long, PendingUpdate> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, PendingUpdate> quarantined = new ConcurrentHashMap<>();
+    /** 회원별 연속 실패 횟수. flush 는 동시에 하나만 실행되므로 flush 안에서만 접근한다. */
+    private final Map<Long, Integer> failures = new HashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile RuntimeException lastFailure;
+
+    public MemberWriteBehind(EntityManagerFactory emf, int flushThreshold, long flushIntervalMillis) {
+        if (flushThreshold <= 0) {
+            throw new IllegalArgumentException("flushThreshold must be positive: " + flushThreshold);
+        }
+        this.emf = emf;
+        this.flushThreshold = flushThreshold;
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void changeAge(Long memberId, int age) {
+        enqueue(memberId, new PendingUpdate(age, null, null));
+    }
+
+    /** null 은 "변경 없음" 과 구분할 수 없으므로 허용하지 않는다. */
+    public void changeType(Long memberId, MemberType type) {
+        enqueue(memberId, new PendingUpdate(null, Objects.requireNonNull(type, "type"), null));
+    }
+
+    /** null 은 "변경 없음" 과 구분할 수 없으므로 허용하지 않는다. (Member.changeTeam 과 동일) */
+    public void changeTeam(Long memberId, Long teamId) {
+        enqueue(memberId, new PendingUpdate(null, null, Objects.requireNonNull(teamId, "teamId")));
+    }
+
+    private void enqueue(Long memberId, PendingUpdate update) {
+        Objects.requireNonNull(memberId, "memberId");
+        if (closed.get()) {
+            throw new IllegalStateException("write-behind buffer is closed");
+        }
+        pending.merge(memberId, update, PendingUpdate::overlay);
+        if (pending.size() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * 회원 조회. 아직 DB 에 반영되지 않은 변경을 덮어쓴 복사본을 반환한다.
+     * 호출한 쪽의 영속성 컨텍스트에 있는 회원은 건드리지 않는다.
+     */
+    public Member find(EntityManager em, Long memberId) {
+        /**
+         * flush 는 inFlight 에 넣은 뒤 pending 에서 빼므로, pending -> inFlight 순서로 읽으면 둘 다 놓치는 경우가 없다.
+         * DB 조회보다 먼저 읽어야 커밋 직후 inFlight 가 비워진 경우에도 커밋된 값을 읽는다.
+         */
+        PendingUpdate newer = pending.get(memberId);
+        PendingUpdate older = inFlight.get(memberId);
+
+        Member member = em.find(Member.class, memberId);
+        if (member == null) {
+            return null;
+        }
+
+        Member copy = copyOf(member);
+        if (older != null) {
+            older.applyTo(em, copy);
+        }
+        if (newer != null) {
+            newer.applyTo(em, copy);
+        }
+        return copy;
+    }
+
+    private static Member copyOf(Member member) {
+        Member copy = new Member();
+        copy.setId(member.getId());
+        copy.setUsername(member.getUsername());
+        copy.setAge(member.getAge());
+        copy.setType(member.getType());
+        copy.setTeam(member.getTeam());
+        return copy;
+    }
+
+    /**
+     * 버퍼의 변경을 JDBC 배치로 반영한다. 동시에 하나의 flush 만 실행되고, 이미 실행 중이면 0 을 반환.
+     * @return 반영한 회원 수
+     */
+    public int flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        flushRequested.set(false);
+        try {
+            Map<Long, PendingUpdate> drained = new HashMap<>();
+            for (Long memberId : pending.keySet()) {
+                PendingUpdate update = pending.get(memberId);
+                if (update == null) {
+                    continue;
+                }
+                inFlight.put(memberId, update);
+                if (pending.remove(memberId, update)) {
+                    drained.put(memberId, update);
+                } else {
+                    /** 그 사이 새 변경이 합쳐졌으면 다음 flush 에서 반영 */
+                    inFlight.remove(memberId);
+                }
+            }
+            if (drained.isEmpty()) {
+                return 0;
+            }
+
+            try {
+                write(drained);
+                drained.keySet().forEach(failures::remove);
+                return drained.size();
+            } catch (RuntimeException e) {
+                lastFailure = e;
+                return drained.size() - writeOneByOne(drained);
+            } finally {
+                inFlight.clear();
+            }
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * 배치가 실패했을 때 회원 한명씩 반영해서 실패한 회원만 골라낸다.
+     * @return 실패한 회원 수
+     */
+    private int writeOneByOne(Map<Long, PendingUpdate> drained) {
+        int failed = 0;
+        for (Map.Entry<Long, PendingUpdate> entry : drained.entrySet()) {
+            Long memberId = entry.getKey();
+            PendingUpdate update = entry.getValue();
+            try {
+                write(Collections.singletonMap(memberId, update));
+                failures.remove(memberId);
+            } catch (RuntimeException e) {
+                lastFailure = e;
+                failed++;
+                int attempts = failures.merge(memberId, 1, Integer::sum);
+                if (attempts >= MAX_ATTEMPTS) {
+                    failures.remove(memberId);
+                    quarantined.merge(memberId, update, PendingUpdate::overlay);
+                } else {
+                    /** 실패한 변경을 되돌려 놓되, 그 사이에 들어온 변경이 우선 */
+                    pending.merge(memberId, update, (current, retry) -> retry.overlay(current));
+                }
+            }
+        }
+        return failed;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(Map<Long, PendingUpdate> updates) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        try {
+            em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(UPDATE_SQL)) {
+                    for (Map.Entry<Long, PendingUpdate> entry : updates.entrySet()) {
+                        entry.getValue().bind(ps);
+                        ps.setLong(4, entry.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            });
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /** MAX_ATTEMPTS 번 반영에 실패해서 격리된 회원 id 목록 */
+    public Set<Long> getQuarantined() {
+        return Collections.unmodifiableSet(quarantined.keySet());
+    }
+
+    /** 격리된 변경을 버린다. */
+    public void discardQuarantined(Long memberId) {
+        quarantined.remove(memberId);
+    }
+
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 새 변경을 막고 스케줄러를 멈춘 뒤, 남은 변경을 모두 반영한다.
+     * @throws IllegalStateException 반영하지 못하고 격리된 변경이 남아 있는 경우
+     */
+    @Override
+    public void close() {
+        closed.set(true);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        /** 실패한 회원은 MAX_ATTEMPTS 번 뒤에 격리되어 pending 에서 빠지므로 반복은 끝난다. */
+        while (!pending.isEmpty()) {
+            flush();
+        }
+        if (!quarantined.isEmpty()) {
+            throw new IllegalStateException("changes not written for members " + quarantined.keySet(), lastFailure);
+        }
+    }
+
+    /** 회원 한명에 대해 합쳐진 변경. null 인 필드는 변경 없음. */
+    private static final class PendingUpdate {
+        private final Integer age;
+        private final MemberType type;
+        private final Long teamId;
+
+        private PendingUpdate(Integer age, MemberType type, Long teamId) {
+            this.age = age;
+            this.type = type;
+            this.teamId = teamId;
+        }
+
+        /** newer 의 값이 있으면 newer 가 이긴다. */
+        private PendingUpdate overlay(PendingUpdate newer) {
+            return new PendingUpdate(
+                    newer.age != null ? newer.age : age,
+                    newer.type != null ? newer.type : type,
+                    newer.teamId != null ? newer.teamId : teamId);
+        }
+
+        private void bind(PreparedStatement ps) throws SQLException {
+            if (age != null) {
+                ps.setInt(1, age);
+            } else {
+                ps.setNull(1, Types.INTEGER);
+            }
+            if (type != null) {
+                ps.setByte(2, type.getCode());
+            } else {
+                ps.setNull(2, Types.TINYINT);
+            }
+            if (teamId != null) {
+                ps.setLong(3, teamId);
+            } else {
+                ps.setNull(3, Types.BIGINT);
+            }
+        }
+
+        private void applyTo(EntityManager em, Member member) {
+            if (age != null) {
+                member.setAge(age);
+            }
+            if (type != null) {
+                member.setType(type);
+            }
+            if (teamId != null) {
+                member.setTeam(em.getReference(Team.class, teamId));
+            }
+        }
+    }
+}
@@ -1,12 +1,29 @@
 package jpql;
 
+import shard.ShardedIdGenerator;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "ORDERS")
+@NamedQueries({
+    @NamedQuery(
+        name = "Order.findAddresses",
+        query = "select o.address from Order o"
+    ),
+    @NamedQuery(
+        name = "Order.findIdsInRange",
+        query = "select o.id from Order o where o.id > :lastId and o.id <= :maxId order by o.id"
+    ),
+    @NamedQuery(
+        name = "Order.deleteInRange",
+        query = "delete from Order o where o.id > :lastId and o.id <= :chunkEnd"
+    )
+})
 public class Order {
 
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(generator = ShardedIdGenerator.NAME)
     private Long id;
 
     private int orderAmount;
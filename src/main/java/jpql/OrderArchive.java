@@ -0,0 +1,57 @@
+package jpql;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * 아카이빙된 주문. ORDERS 의 컬럼을 그대로 옮겨 담는다.
+ * Address 는 insert-select 로 옮기기 위해 임베디드 타입 대신 컬럼을 풀어서 매핑.
+ */
+@Entity
+@Table(name = "ORDERS_ARCHIVE")
+@NamedQuery(
+    name = "OrderArchive.copyFromOrders",
+    query = "insert into OrderArchive (id, orderAmount, city, street, zipcode, productId) " +
+            "select o.id, o.orderAmount, o.address.city, o.address.street, o.address.zipcode, p.id " +
+            "from Order o left join o.product p " +
+            "where o.id > :lastId and o.id <= :chunkEnd"
+)
+public class OrderArchive {
+
+    @Id
+    private Long id;
+
+    private int orderAmount;
+
+    private String city;
+    private String street;
+    private String zipcode;
+
+    private Long productId;
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getOrderAmount() {
+        return orderAmount;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public String getStreet() {
+        return street;
+    }
+
+    public String getZipcode() {
+        return zipcode;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+}
@@ -0,0 +1,175 @@
+package jpql;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.List;
+
+/**
+ * 오래된 주문(ORDERS)을 ORDERS_ARCHIVE 로 옮기고 삭제하는 작업.
+ *
+ * delete from Order o where ... 를 한번에 실행하면 테이블의 많은 부분에 락이 걸리고 트랜잭션 로그가 커진다.
+ * 그래서 id 범위를 chunkSize 만큼씩 잘라서, 청크마다 짧은 트랜잭션으로
+ * 1. insert-select 로 아카이브 테이블에 복사 (하이버네이트 벌크 INSERT)
+ * 2. 같은 범위를 delete
+ * 3. 체크포인트 갱신
+ * 을 수행한다. 청크 사이에는 pauseMillis 만큼 쉬어서 다른 요청의 응답 시간을 보호한다.
+ *
+ * 주의 : 체크포인트는 id 기준이므로 "id 가 작을수록 오래된 주문" 이어야 한다.
+ * pooled 시퀀스나 샤드 id(ShardedIdGenerator) 는 id 를 미리 할당하기 때문에, 체크포인트보다 작은 id 의 주문이
+ * 나중에 커밋될 수 있다. 그래서 매 실행 마지막에 체크포인트 이하 구간을 한번 더 훑어서 늦게 커밋된 주문도 옮긴다.
+ * maxId 는 진행 중인 트랜잭션이 없을 만큼 충분히 오래된 주문의 id 로 지정해야 한다.
+ *
+ * 벌크 연산이므로 영속성 컨텍스트를 거치지 않는다. 작업용 EntityManager 를 청크마다 새로 만든다.
+ */
+public class OrderArchiver {
+
+    private final EntityManagerFactory emf;
+    private final String jobName;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    /** 마지막 archiveUpTo 실행 결과 */
+    private int chunkCount;
+    private long sweptCount;
+    private Long checkpoint;
+
+    public OrderArchiver(EntityManagerFactory emf, String jobName, int chunkSize, long pauseMillis) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.emf = emf;
+        this.jobName = jobName;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * id 가 maxId 이하인 주문을 모두 아카이빙한다. 체크포인트가 있으면 그 다음부터 이어서 진행.
+     * @return 이번 실행에서 옮긴 주문 수
+     */
+    public long archiveUpTo(Long maxId) throws InterruptedException {
+        Long startId = loadCheckpoint();
+        chunkCount = 0;
+        checkpoint = startId;
+
+        long archived = archiveRange(startId, maxId, true);
+        /** 체크포인트 아래로 늦게 커밋된 주문. 이미 지워진 구간이라 대부분 빈 결과. maxId 보다 새로운 주문은 건드리지 않는다. */
+        sweptCount = archiveRange(0L, Math.min(startId, maxId), false);
+        return archived + sweptCount;
+    }
+
+    private long archiveRange(Long fromId, Long toId, boolean advanceCheckpoint) throws InterruptedException {
+        long archived = 0;
+        Long lastId = fromId;
+
+        while (true) {
+            Chunk chunk = archiveChunk(lastId, toId, advanceCheckpoint);
+            if (chunk.count == 0) {
+                break;
+            }
+            archived += chunk.count;
+            lastId = chunk.end;
+            chunkCount++;
+            if (advanceCheckpoint) {
+                checkpoint = lastId;
+            }
+
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+        return archived;
+    }
+
+    /** 마지막 실행에서 옮긴 청크 수 (체크포인트 아래 구간 포함) */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** 마지막 실행에서 체크포인트 아래 구간에서 옮긴, 늦게 커밋된 주문 수 */
+    public long getSweptCount() {
+        return sweptCount;
+    }
+
+    /** 마지막 실행이 끝난 뒤의 체크포인트 */
+    public Long getCheckpoint() {
+        return checkpoint;
+    }
+
+    private Long loadCheckpoint() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            ArchiveCheckpoint checkpoint = em.find(ArchiveCheckpoint.class, jobName);
+            return checkpoint == null ? 0L : checkpoint.getLastId();
+        } finally {
+            em.close();
+        }
+    }
+
+    /** (lastId, maxId] 구간에서 최대 chunkSize 건을 하나의 트랜잭션으로 옮긴다. */
+    private Chunk archiveChunk(Long lastId, Long maxId, boolean advanceCheckpoint) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        try {
+            List<Long> ids = em.createNamedQuery(QueryRegistry.ORDER_FIND_IDS_IN_RANGE, Long.class)
+                    .setParameter("lastId", lastId)
+                    .setParameter("maxId", maxId)
+                    .setMaxResults(chunkSize)
+                    .getResultList();
+
+            if (ids.isEmpty()) {
+                tx.commit();
+                return new Chunk(lastId, 0);
+            }
+            Long chunkEnd = ids.get(ids.size() - 1);
+
+            int copied = em.createNamedQuery(QueryRegistry.ORDER_ARCHIVE_COPY_FROM_ORDERS)
+                    .setParameter("lastId", lastId)
+                    .setParameter("chunkEnd", chunkEnd)
+                    .executeUpdate();
+
+            int deleted = em.createNamedQuery(QueryRegistry.ORDER_DELETE_IN_RANGE)
+                    .setParameter("lastId", lastId)
+                    .setParameter("chunkEnd", chunkEnd)
+                    .executeUpdate();
+
+            /** 복사와 삭제 건수가 다르면 범위 안에 동시에 변경이 있었던 것이므로 롤백하고 다음 실행에 맡긴다. */
+            if (copied != deleted) {
+                throw new IllegalStateException("copied " + copied + " but deleted " + deleted
+                        + " in (" + lastId + ", " + chunkEnd + "]");
+            }
+
+            if (advanceCheckpoint) {
+                ArchiveCheckpoint checkpoint = em.find(ArchiveCheckpoint.class, jobName);
+                if (checkpoint == null) {
+                    em.persist(new ArchiveCheckpoint(jobName, chunkEnd));
+                } else {
+                    checkpoint.setLastId(chunkEnd);
+                }
+            }
+
+            tx.commit();
+            return new Chunk(chunkEnd, deleted);
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static final class Chunk {
+        private final Long end;
+        private final int count;
+
+        private Chunk(Long end, int count) {
+            this.end = end;
+            this.count = count;
+        }
+    }
+}
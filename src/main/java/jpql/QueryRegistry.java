@@ -0,0 +1,217 @@
+package jpql;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 애플리케이션에서 사용하는 쿼리를 한 곳에 모아두는 레지스트리.
+ *
+ * JPQL 문자열 쿼리는 엔티티의 @NamedQuery 로, 동적인 형태가 필요한 쿼리는 정적 메타모델(Member_)을 사용한
+ * Criteria 로 정의한다. EntityManagerFactory 생성 직후 register 를 호출하면
+ * 모든 쿼리가 파싱/검증되고 하이버네이트 쿼리 플랜 캐시에 미리 올라간다.
+ * 오타가 있으면 애플리케이션 로딩 시점에 예외가 발생한다.
+ *
+ * 쿼리 이름 상수와 엔티티에 선언된 @NamedQuery 가 서로 맞지 않으면 register 에서 예외가 발생한다.
+ */
+public final class QueryRegistry {
+
+    /** @NamedQuery (Member) */
+    public static final String MEMBER_FIND_BY_USERNAME = "Member.findByUserName";
+    public static final String MEMBER_FIND_BY_TEAM = "Member.findByTeam";
+    public static final String MEMBER_FIND_ALL_ORDER_BY_AGE_DESC = "Member.findAllOrderByAgeDesc";
+    public static final String MEMBER_FIND_BY_TYPE_ORDER_BY_AGE_DESC = "Member.findByTypeOrderByAgeDesc";
+    public static final String MEMBER_FIND_ALL = "Member.findAll";
+    public static final String MEMBER_FIND_USERNAME_AND_AGE = "Member.findUsernameAndAge";
+    public static final String MEMBER_FIND_DISTINCT_USERNAME_AND_AGE = "Member.findDistinctUsernameAndAge";
+    public static final String MEMBER_FIND_MEMBER_DTO = "Member.findMemberDTO";
+    public static final String MEMBER_FIND_TEAM = "Member.findTeam";
+    public static final String MEMBER_FIND_JOINED_TEAM = "Member.findJoinedTeam";
+    public static final String MEMBER_FIND_USERNAME_CONCAT = "Member.findUsernameConcat";
+    public static final String MEMBER_FIND_USERNAME_NULL_IF_ADMIN = "Member.findUsernameNullIfAdmin";
+    public static final String MEMBER_FIND_BY_TEAM_NAME = "Member.findByTeamName";
+    public static final String MEMBER_FIND_LEFT_JOIN_TEAM_A = "Member.findLeftJoinTeamA";
+    public static final String MEMBER_FIND_LEFT_JOIN_TEAM_BY_USERNAME = "Member.findLeftJoinTeamByUsername";
+    public static final String MEMBER_UPDATE_AGE_BY_USERNAME = "Member.updateAgeByUserName";
+
+    /** @NamedQuery (Team) */
+    public static final String TEAM_FIND_ALL = "Team.findAll";
+    public static final String TEAM_FIND_MEMBER_USERNAMES = "Team.findMemberUsernames";
+
+    /** @NamedQuery (Order) */
+    public static final String ORDER_FIND_ADDRESSES = "Order.findAddresses";
+    public static final String ORDER_FIND_IDS_IN_RANGE = "Order.findIdsInRange";
+    public static final String ORDER_DELETE_IN_RANGE = "Order.deleteInRange";
+
+    /** @NamedQuery (OrderArchive) */
+    public static final String ORDER_ARCHIVE_COPY_FROM_ORDERS = "OrderArchive.copyFromOrders";
+
+    /** @NamedQuery (AddressCode) */
+    public static final String ADDRESS_CODE_FIND_ID_BY_ADDRESS = "AddressCode.findIdByAddress";
+
+    /** Criteria (register 시점에 등록) */
+    public static final String MEMBER_FEE_GRADE = "Member.feeGrade";
+    public static final String MEMBER_FIND_BY_TYPE = "Member.findByType";
+
+    private static final List<String> CRITERIA_QUERIES = Arrays.asList(MEMBER_FEE_GRADE, MEMBER_FIND_BY_TYPE);
+
+    private QueryRegistry() {
+    }
+
+    /**
+     * Criteria 쿼리를 네임드 쿼리로 등록하고, 상수와 선언된 네임드 쿼리가 일치하는지 확인한다.
+     * createQuery 시점에 JPQL 로 변환/컴파일되므로 잘못된 쿼리는 여기서 IllegalArgumentException 이 발생한다.
+     * @NamedQuery 는 hibernate.query.startup_check 설정으로 팩토리 생성 시점에 이미 검증된다.
+     */
+    public static void register(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            CriteriaBuilder cb = em.getCriteriaBuilder();
+            emf.addNamedQuery(MEMBER_FEE_GRADE, em.createQuery(feeGrade(cb)));
+            emf.addNamedQuery(MEMBER_FIND_BY_TYPE, em.createQuery(findByType(cb)));
+        } finally {
+            em.close();
+        }
+
+        Set<String> constants = constantNames();
+        Set<String> registered = registeredQueryNames(emf);
+        if (!constants.equals(registered)) {
+            Set<String> missing = new TreeSet<>(constants);
+            missing.removeAll(registered);
+            Set<String> undeclared = new TreeSet<>(registered);
+            undeclared.removeAll(constants);
+            throw new IllegalStateException("QueryRegistry out of sync. no query for constants = " + missing
+                    + ", no constant for queries = " + undeclared);
+        }
+    }
+
+    /** 엔티티에 선언된 @NamedQuery 이름 + Criteria 쿼리 이름 */
+    public static Set<String> registeredQueryNames(EntityManagerFactory emf) {
+        Set<String> names = new HashSet<>(CRITERIA_QUERIES);
+        for (EntityType<?> entityType : emf.getMetamodel().getEntities()) {
+            Class<?> javaType = entityType.getJavaType();
+            NamedQuery namedQuery = javaType.getAnnotation(NamedQuery.class);
+            if (namedQuery != null) {
+                names.add(namedQuery.name());
+            }
+            NamedQueries namedQueries = javaType.getAnnotation(NamedQueries.class);
+            if (namedQueries != null) {
+                for (NamedQuery query : namedQueries.value()) {
+                    names.add(query.name());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Set<String> constantNames() {
+        Set<String> names = new HashSet<>();
+        for (Field field : QueryRegistry.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isPublic(modifiers) && Modifier.isStatic(modifiers) && field.getType() == String.class) {
+                try {
+                    names.add((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * select case when m.age <= 10 then '학생요금' when m.age >= 60 then '경로요금' else '일반요금' end
+     * from Member m
+     */
+    private static CriteriaQuery<String> feeGrade(CriteriaBuilder cb) {
+        CriteriaQuery<String> query = cb.createQuery(String.class);
+        Root<Member> m = query.from(Member.class);
+        return query.select(cb.<String>selectCase()
+                .when(cb.le(m.get(Member_.age), 10), "학생요금")
+                .when(cb.ge(m.get(Member_.age), 60), "경로요금")
+                .otherwise("일반요금"));
+    }
+
+    /**
+     * select m.username, 'HELLO', true, m.type from Member m
+     * where m.type = :userType and m.username is not null and m.age between 1 and 100
+     */
+    private static CriteriaQuery<Object[]> findByType(CriteriaBuilder cb) {
+        CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        Root<Member> m = query.from(Member.class);
+        ParameterExpression<MemberType> userType = cb.parameter(MemberType.class, "userType");
+        return query.multiselect(m.get(Member_.username), cb.literal("HELLO"), cb.literal(true), m.get(Member_.type))
+                .where(cb.equal(m.get(Member_.type), userType),
+                        cb.isNotNull(m.get(Member_.username)),
+                        cb.between(m.get(Member_.age), 1, 100));
+    }
+
+    /**
+     * 레지스트리를 거친 쿼리와 거치지 않은 쿼리(ad-hoc) 의 실행 통계 출력.
+     * 통계는 기본으로 꺼져 있다. -Dhibernate.generate_statistics=true 로 켤 수 있다.
+     *
+     * 하이버네이트 5.3 은 쿼리 플랜 캐시의 적중/크기 정보를 제공하지 않는다.
+     * 그래서 여기 출력되는 값은 플랜 캐시 지표가 아니라, 전체 실행 중 레지스트리 쿼리가 차지하는 비율이다.
+     */
+    public static void printStatistics(EntityManagerFactory emf) {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+
+        Set<String> registeredQueryStrings = registeredQueryStrings(emf);
+        long registeredExecutions = 0;
+        long adHocExecutions = 0;
+        int adHocQueries = 0;
+        for (String query : statistics.getQueries()) {
+            QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+            if (registeredQueryStrings.contains(query)) {
+                registeredExecutions += queryStatistics.getExecutionCount();
+            } else {
+                adHocExecutions += queryStatistics.getExecutionCount();
+                adHocQueries++;
+                System.out.println("ad-hoc query = " + query);
+            }
+        }
+
+        long totalExecutions = registeredExecutions + adHocExecutions;
+        System.out.println("registered queries = " + registeredQueryStrings.size());
+        System.out.println("distinct ad-hoc queries = " + adHocQueries);
+        System.out.println("registered query executions = " + registeredExecutions + " / " + totalExecutions);
+        if (totalExecutions > 0) {
+            System.out.println("registered query share = " + (registeredExecutions * 100 / totalExecutions) + "%");
+        }
+    }
+
+    /** 통계의 키는 쿼리 문자열이므로, 네임드 쿼리에 등록된 문자열을 모아둔다. */
+    private static Set<String> registeredQueryStrings(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            Set<String> queryStrings = new HashSet<>();
+            for (String name : registeredQueryNames(emf)) {
+                queryStrings.add(em.createNamedQuery(name).unwrap(Query.class).getQueryString());
+            }
+            return queryStrings;
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -1,18 +1,32 @@
 package jpql;
 
 import org.hibernate.annotations.BatchSize;
+import shard.ShardedIdGenerator;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@NamedQueries({
+    @NamedQuery(
+        name = "Team.findAll",
+        query = "select t from Team t"
+    ),
+    @NamedQuery(
+        name = "Team.findMemberUsernames",
+        query = "select m.username from Team t join t.members m"
+    )
+})
 public class Team {
 
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(generator = ShardedIdGenerator.NAME)
     private Long id;
 
     private String name;
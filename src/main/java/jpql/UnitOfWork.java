@@ -0,0 +1,182 @@
+package jpql;
+
+import org.hibernate.Hibernate;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.PluralAttribute;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 긴 쓰기 트랜잭션에서 영속성 컨텍스트가 계속 커지지 않도록 관리하는 EntityManager 래퍼.
+ *
+ * persist/merge 할 때마다 영속성 컨텍스트가 관리하는 엔티티 수를 확인하고,
+ * hibernate.jdbc.batch_size * batchesPerFlush 개가 쌓이면 em.flush(); em.clear(); 를 대신 해준다.
+ * flush 단위를 배치 사이즈의 배수로 맞춰서 마지막 JDBC 배치가 덜 채워진 채로 나가지 않게 한다.
+ *
+ * pin 한 엔티티(여러 회원이 공유하는 Team 등)는 clear 이후에 다시 영속성 컨텍스트에 붙여서
+ * 계속 같은 인스턴스를 연관관계에 사용할 수 있다.
+ * 단, pin 한 엔티티의 컬렉션(Team.members 등)이 참조하는 객체는 메모리에서 해제되지 않는다.
+ * 대량 insert 에서는 member.changeTeam(team) 대신 연관관계의 주인만 설정(member.setTeam(team))해야 한다.
+ * flushAndClear 시점에 pin 한 엔티티의 컬렉션이 로딩되어 있고 비어있지 않으면 getRetainedCollections 에 기록하고 printReport 에 경고로 출력한다.
+ *
+ * 메모리 사용량은 두 가지로 보고한다.
+ * - 추정값 : 엔티티 수 * bytesPerEntity (가정한 엔티티당 크기)
+ * - 측정값 : flush 직전의 JVM 힙 사용량 (Runtime). 영속성 컨텍스트만의 크기가 아니라 JVM 전체 사용량이다.
+ */
+public class UnitOfWork {
+
+    private static final int DEFAULT_BATCHES_PER_FLUSH = 10;
+    private static final long DEFAULT_BYTES_PER_ENTITY = 512;
+
+    private final EntityManager em;
+    private final int flushThreshold;
+    private final long bytesPerEntity;
+    private final List<Object> pinned = new ArrayList<>();
+    private final Set<String> retainedCollections = new TreeSet<>();
+
+    private int peakEntityCount;
+    private long peakHeapUsed;
+    private int flushCount;
+
+    public UnitOfWork(EntityManager em) {
+        this(em, DEFAULT_BATCHES_PER_FLUSH, DEFAULT_BYTES_PER_ENTITY);
+    }
+
+    public UnitOfWork(EntityManager em, int batchesPerFlush, long bytesPerEntity) {
+        if (batchesPerFlush <= 0) {
+            throw new IllegalArgumentException("batchesPerFlush must be positive: " + batchesPerFlush);
+        }
+        this.em = em;
+        this.flushThreshold = jdbcBatchSize(em) * batchesPerFlush;
+        this.bytesPerEntity = bytesPerEntity;
+    }
+
+    /** 설정이 없으면 JDBC 배치를 사용하지 않는 것과 같으므로 1 */
+    private static int jdbcBatchSize(EntityManager em) {
+        Object batchSize = em.getEntityManagerFactory().getProperties().get(AvailableSettings.STATEMENT_BATCH_SIZE);
+        if (batchSize == null) {
+            return 1;
+        }
+        return Math.max(1, Integer.parseInt(batchSize.toString().trim()));
+    }
+
+    /** clear 이후에도 영속 상태로 유지할 엔티티. 이미 영속 상태여야 한다. */
+    public <T> T pin(T entity) {
+        if (!em.contains(entity)) {
+            throw new IllegalArgumentException("entity is not managed: " + entity);
+        }
+        pinned.add(entity);
+        return entity;
+    }
+
+    public void persist(Object entity) {
+        em.persist(entity);
+        afterWrite();
+    }
+
+    public <T> T merge(T entity) {
+        T merged = em.merge(entity);
+        afterWrite();
+        return merged;
+    }
+
+    private void afterWrite() {
+        int managed = getManagedCount();
+        peakEntityCount = Math.max(peakEntityCount, managed);
+        if (managed - pinned.size() >= flushThreshold) {
+            flushAndClear();
+        }
+    }
+
+    /**
+     * em.flush(); em.clear(); 후 pin 한 엔티티를 다시 영속성 컨텍스트에 붙인다.
+     * LockOptions.NONE 으로 lock 하면 DB 조회 없이 같은 인스턴스가 다시 관리된다.
+     */
+    public void flushAndClear() {
+        Runtime runtime = Runtime.getRuntime();
+        peakHeapUsed = Math.max(peakHeapUsed, runtime.totalMemory() - runtime.freeMemory());
+
+        em.flush();
+        for (Object entity : pinned) {
+            collectRetainedCollections(entity);
+        }
+        em.clear();
+
+        Session session = em.unwrap(Session.class);
+        for (Object entity : pinned) {
+            session.buildLockRequest(LockOptions.NONE).lock(entity);
+        }
+        flushCount++;
+    }
+
+    /** clear 해도 pin 한 엔티티가 계속 참조하는 컬렉션(로딩되어 있고 비어있지 않은 컬렉션)을 기록 */
+    private void collectRetainedCollections(Object entity) {
+        Class<?> entityClass = Hibernate.getClass(entity);
+        Object target = Hibernate.unproxy(entity);
+        EntityPersister persister = em.unwrap(SessionImplementor.class).getEntityPersister(null, target);
+        for (PluralAttribute<?, ?, ?> attribute : em.getMetamodel().entity(entityClass).getPluralAttributes()) {
+            Object value = persister.getPropertyValue(target, attribute.getName());
+            if (!Hibernate.isInitialized(value)) {
+                continue;
+            }
+            boolean empty = value instanceof Map ? ((Map<?, ?>) value).isEmpty() : ((Collection<?>) value).isEmpty();
+            if (!empty) {
+                retainedCollections.add(entityClass.getSimpleName() + "." + attribute.getName());
+            }
+        }
+    }
+
+    public int getManagedCount() {
+        return em.unwrap(Session.class).getStatistics().getEntityCount();
+    }
+
+    public long getEstimatedBytes() {
+        return getManagedCount() * bytesPerEntity;
+    }
+
+    public int getPeakEntityCount() {
+        return peakEntityCount;
+    }
+
+    public long getPeakEstimatedBytes() {
+        return peakEntityCount * bytesPerEntity;
+    }
+
+    /** flush 직전에 측정한 JVM 힙 사용량 중 가장 큰 값 */
+    public long getPeakHeapUsed() {
+        return peakHeapUsed;
+    }
+
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    /** clear 이후에도 pin 한 엔티티가 요소를 붙잡고 있던 컬렉션. (예: Team.members) */
+    public Set<String> getRetainedCollections() {
+        return Collections.unmodifiableSet(retainedCollections);
+    }
+
+    public void printReport() {
+        System.out.println("flush threshold = " + flushThreshold);
+        System.out.println("flush count = " + flushCount);
+        System.out.println("peak entities = " + peakEntityCount);
+        System.out.println("peak context size (assumed " + bytesPerEntity + " bytes/entity) = "
+                + getPeakEstimatedBytes() / 1024 + "KB");
+        System.out.println("peak JVM heap used at flush (measured) = " + peakHeapUsed / 1024 + "KB");
+        if (!retainedCollections.isEmpty()) {
+            System.out.println("warn: pinned collections kept in memory after clear = " + retainedCollections
+                    + ". set only the owning side in bulk loops.");
+        }
+    }
+}
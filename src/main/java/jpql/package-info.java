@@ -0,0 +1,13 @@
+/**
+ * Team, Member, Order, CompactOrder 가 같이 사용하는 샤드 id 생성기. 엔티티에는 @GeneratedValue(generator = ShardedIdGenerator.NAME) 만 지정한다.
+ */
+@GenericGenerator(name = ShardedIdGenerator.NAME, strategy = "shard.ShardedIdGenerator",
+        parameters = {
+                @Parameter(name = "sequence_name", value = ShardedIdGenerator.SEQUENCE_NAME),
+                @Parameter(name = "increment_size", value = "50")
+        })
+package jpql;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import shard.ShardedIdGenerator;
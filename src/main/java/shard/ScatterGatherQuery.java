@@ -0,0 +1,165 @@
+package shard;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 모든 샤드에 같은 네임드 쿼리를 병렬로 실행하고 결과를 합치는 쿼리. (ShardRouter.createNamedQuery)
+ *
+ * 정렬이 필요하면 쿼리의 order by 와 같은 순서의 Comparator 를 orderBy 로 넘겨야 한다.
+ * 각 샤드에서 firstResult + maxResults 건까지만 정렬된 상태로 가져온 뒤, 이를 병합해서 페이징한다.
+ * 그래서 뒤쪽 페이지일수록 샤드마다 가져오는 건수가 늘어난다.
+ *
+ * 결과 엔티티는 샤드별 EntityManager 가 닫힌 뒤 반환되므로 준영속 상태다. 필요한 연관관계는 fetch join 으로 가져와야 한다.
+ */
+public class ScatterGatherQuery<T> {
+
+    private final List<EntityManagerFactory> factories;
+    private final ExecutorService executor;
+    private final String name;
+    private final Class<T> resultClass;
+    private final Map<String, Object> parameters = new HashMap<>();
+
+    private Comparator<? super T> order;
+    private int firstResult;
+    private int maxResults = -1;
+
+    ScatterGatherQuery(List<EntityManagerFactory> factories, ExecutorService executor, String name, Class<T> resultClass) {
+        this.factories = factories;
+        this.executor = executor;
+        this.name = name;
+        this.resultClass = resultClass;
+    }
+
+    public ScatterGatherQuery<T> setParameter(String name, Object value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    public ScatterGatherQuery<T> orderBy(Comparator<? super T> order) {
+        this.order = order;
+        return this;
+    }
+
+    public ScatterGatherQuery<T> setFirstResult(int firstResult) {
+        if (firstResult < 0) {
+            throw new IllegalArgumentException("firstResult must not be negative: " + firstResult);
+        }
+        this.firstResult = firstResult;
+        return this;
+    }
+
+    public ScatterGatherQuery<T> setMaxResults(int maxResults) {
+        if (maxResults < 0) {
+            throw new IllegalArgumentException("maxResults must not be negative: " + maxResults);
+        }
+        this.maxResults = maxResults;
+        return this;
+    }
+
+    public List<T> getResultList() {
+        List<Future<List<T>>> futures = new ArrayList<>();
+        for (EntityManagerFactory emf : factories) {
+            futures.add(executor.submit(() -> queryShard(emf)));
+        }
+
+        List<List<T>> shardResults = new ArrayList<>();
+        for (Future<List<T>> future : futures) {
+            shardResults.add(await(future));
+        }
+
+        return page(order == null ? concat(shardResults) : merge(shardResults));
+    }
+
+    private List<T> queryShard(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            TypedQuery<T> query = em.createNamedQuery(name, resultClass);
+            parameters.forEach(query::setParameter);
+            if (maxResults >= 0) {
+                query.setMaxResults(firstResult + maxResults);
+            }
+            return query.getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    private List<T> await(Future<List<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PersistenceException(e.getCause());
+        }
+    }
+
+    private List<T> concat(List<List<T>> shardResults) {
+        List<T> result = new ArrayList<>();
+        shardResults.forEach(result::addAll);
+        return result;
+    }
+
+    /** 샤드별로 정렬된 결과를 k-way 병합 */
+    private List<T> merge(List<List<T>> shardResults) {
+        PriorityQueue<Cursor<T>> queue = new PriorityQueue<>((a, b) -> order.compare(a.current, b.current));
+        for (List<T> shardResult : shardResults) {
+            Iterator<T> iterator = shardResult.iterator();
+            if (iterator.hasNext()) {
+                queue.add(new Cursor<>(iterator));
+            }
+        }
+
+        int limit = maxResults < 0 ? Integer.MAX_VALUE : firstResult + maxResults;
+        List<T> result = new ArrayList<>();
+        while (!queue.isEmpty() && result.size() < limit) {
+            Cursor<T> cursor = queue.poll();
+            result.add(cursor.current);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return result;
+    }
+
+    private List<T> page(List<T> merged) {
+        int from = Math.min(firstResult, merged.size());
+        int to = maxResults < 0 ? merged.size() : Math.min(from + maxResults, merged.size());
+        return new ArrayList<>(merged.subList(from, to));
+    }
+
+    private static final class Cursor<T> {
+        private final Iterator<T> iterator;
+        private T current;
+
+        private Cursor(Iterator<T> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+    }
+}
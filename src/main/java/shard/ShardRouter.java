@@ -0,0 +1,133 @@
+package shard;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * 하나의 persistence unit 을 여러 데이터베이스(샤드)에 띄우고, 샤드 키로 EntityManagerFactory 를 골라주는 라우터.
+ *
+ * 샤드 키는 테넌트(예: 팀 이름)처럼 함께 조회되는 데이터를 묶는 값이다.
+ * 재시작해도 같은 샤드로 가야 하므로 값으로 해시가 정해지는 String(UTF-8 바이트의 CRC32) 과 Long 만 허용한다.
+ * (enum 이나 hashCode 를 재정의하지 않은 객체의 hashCode 는 JVM 마다 달라진다)
+ * Team 과 그 팀의 Member, Order 는 같은 샤드 키로 저장해야 연관관계와 조인이 한 샤드 안에서 동작한다.
+ * 저장된 엔티티의 샤드는 id 로도 알 수 있다. (ShardedIdGenerator)
+ */
+public class ShardRouter implements AutoCloseable {
+
+    private static final String JDBC_URL = "javax.persistence.jdbc.url";
+
+    private final List<EntityManagerFactory> factories;
+    private final ExecutorService executor;
+
+    /**
+     * @param initializer 샤드마다 EntityManagerFactory 생성 직후 실행 (네임드 쿼리 등록 등)
+     */
+    public ShardRouter(String persistenceUnitName, List<String> jdbcUrls, Consumer<EntityManagerFactory> initializer) {
+        if (jdbcUrls.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+
+        List<EntityManagerFactory> factories = new ArrayList<>();
+        try {
+            for (int i = 0; i < jdbcUrls.size(); i++) {
+                Map<String, Object> properties = new HashMap<>();
+                properties.put(JDBC_URL, jdbcUrls.get(i));
+                properties.put(ShardedIdGenerator.SHARD_COUNT, String.valueOf(jdbcUrls.size()));
+                properties.put(ShardedIdGenerator.SHARD_INDEX, String.valueOf(i));
+
+                EntityManagerFactory emf = Persistence.createEntityManagerFactory(persistenceUnitName, properties);
+                factories.add(emf);
+                initializer.accept(emf);
+            }
+        } catch (RuntimeException e) {
+            factories.forEach(EntityManagerFactory::close);
+            throw e;
+        }
+
+        this.factories = Collections.unmodifiableList(factories);
+        this.executor = Executors.newFixedThreadPool(factories.size());
+    }
+
+    /** 테스트용 로컬 H2 메모리 DB 샤드 */
+    public static ShardRouter inMemoryH2(String persistenceUnitName, int shardCount,
+                                         Consumer<EntityManagerFactory> initializer) {
+        List<String> jdbcUrls = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            jdbcUrls.add("jdbc:h2:mem:shard" + i + ";DB_CLOSE_DELAY=-1");
+        }
+        return new ShardRouter(persistenceUnitName, jdbcUrls, initializer);
+    }
+
+    public int getShardCount() {
+        return factories.size();
+    }
+
+    public int shardFor(Object shardKey) {
+        if (shardKey instanceof String) {
+            CRC32 crc = new CRC32();
+            crc.update(((String) shardKey).getBytes(StandardCharsets.UTF_8));
+            return (int) (crc.getValue() % factories.size());
+        }
+        if (shardKey instanceof Long) {
+            return Math.floorMod((Long) shardKey, factories.size());
+        }
+        throw new IllegalArgumentException("shard key must be a String or Long: "
+                + (shardKey == null ? null : shardKey.getClass().getName()));
+    }
+
+    public int shardOfId(Long id) {
+        return ShardedIdGenerator.shardOf(id, factories.size());
+    }
+
+    public EntityManagerFactory getShardFactory(int shard) {
+        return factories.get(shard);
+    }
+
+    public EntityManagerFactory factoryFor(Object shardKey) {
+        return factories.get(shardFor(shardKey));
+    }
+
+    /** 샤드 키에 해당하는 샤드에서 하나의 트랜잭션으로 실행한다. */
+    public <T> T inTransaction(Object shardKey, Function<EntityManager, T> work) {
+        EntityManager em = factoryFor(shardKey).createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        try {
+            T result = work.apply(em);
+            tx.commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /** 모든 샤드에 같은 네임드 쿼리를 병렬로 실행하는 쿼리 */
+    public <T> ScatterGatherQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+        return new ScatterGatherQuery<>(factories, executor, name, resultClass);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        factories.forEach(EntityManagerFactory::close);
+    }
+}
@@ -0,0 +1,56 @@
+package shard;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 샤드마다 겹치지 않는 id 를 만드는 시퀀스 생성기.
+ *
+ * 각 샤드의 시퀀스 값에 샤드 수를 곱하고 샤드 번호를 더한다. (id = sequence * shard.count + shard.index)
+ * 그래서 id 만 보고도 어느 샤드에 있는지 알 수 있다. (shardOf)
+ * shard.count / shard.index 설정이 없으면 샤드 1개로 보고 시퀀스 값을 그대로 사용한다.
+ *
+ * 시퀀스는 sequence_name = SEQUENCE_NAME 으로 다른 생성기와 분리해서 사용한다.
+ * 기본 시퀀스(hibernate_sequence)를 increment_size 가 다른 생성기와 같이 쓰면 pooled 옵티마이저가 같은 값을 중복으로 할당할 수 있다.
+ */
+public class ShardedIdGenerator extends SequenceStyleGenerator {
+
+    public static final String NAME = "shardedId";
+    public static final String SEQUENCE_NAME = "sharded_id_seq";
+    public static final String SHARD_COUNT = "shard.count";
+    public static final String SHARD_INDEX = "shard.index";
+
+    private int shardCount;
+    private int shardIndex;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, params, serviceRegistry);
+
+        Map<?, ?> settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        shardCount = ConfigurationHelper.getInt(SHARD_COUNT, settings, 1);
+        shardIndex = ConfigurationHelper.getInt(SHARD_INDEX, settings, 0);
+        if (shardCount <= 0 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new MappingException("invalid shard index " + shardIndex + " for shard count " + shardCount);
+        }
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        long sequence = ((Number) super.generate(session, object)).longValue();
+        return sequence * shardCount + shardIndex;
+    }
+
+    public static int shardOf(long id, int shardCount) {
+        return (int) (id % shardCount);
+    }
+}